@@ -1,10 +1,12 @@
 import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxJavaType;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtSession;
 import ai.onnxruntime.OrtSession.SessionOptions;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession.Result;
 import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.TensorInfo;
 
 import org.opencv.core.Mat;
 import static org.opencv.imgcodecs.Imgcodecs.imread;
@@ -15,44 +17,65 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
+import static util.MiscUtil.compareNaturally;
 import static util.MiscUtil.exists;
+import static util.MiscUtil.isImageFile;
 import static util.MiscUtil.initOpenCV;
 import static util.OnnxTensorUtil.createTensorFromImageMat;
-import static util.OnnxTensorUtil.flowTensorToKittiMat;
+import static util.OnnxTensorUtil.flowBufferToKittiMat;
 import static util.OnnxTensorUtil.defaultTensorDimOrders;
 
+import util.FlowInitializer;
+import util.InferenceMetrics;
+
 public class SampleRAFT {
     private static final Logger logger = LoggerFactory.getLogger(SampleRAFT.class);
     private static final String HELP = "help";
+    private static final String IMAGE1 = "image1";
+    private static final String IMAGE2 = "image2";
     private static final String INFERENCE = "inference";
     private static final String LOAD = "load";
     private static final String ONNX = "onnx";
     private static final String PNG = "png";
     private static final String QUIT = "quit";
+    private static final String RESET = "reset";
+    private static final String SEQUENCE = "sequence";
+    private static final String STATS = "stats";
+    // dynamic dims of flow-init are resolved as ceil(image size / divisor), which is 8 for RAFT
+    private static final int FLOW_INIT_DIVISOR = Integer.getInteger("raft.flowInitDivisor", 8);
     private static final String USAGE = "Usage:\n  " +
                                             "help\n  " +
                                             "inference <path-to-image1> <path-to-image2> <path-to-save>\n  " +
                                             "load <path-to-model> [cuda-device-num]\n  " +
+                                            "sequence <path-to-frame-dir> <path-to-save-dir>\n  " +
+                                            "stats [reset]\n  " +
                                             "quit\n";
     private OrtEnvironment env;
     private SessionOptions opts;
     private OrtSession session;
     private boolean modelLoaded;
+    // non-null when the model is exported with an extra flow-init input besides image1 and image2
+    private FlowInitializer flowInit;
 
     public SampleRAFT() throws OrtException {
         initOpenCV();
         this.env = OrtEnvironment.getEnvironment();
         this.opts = new SessionOptions();
         this.opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.BASIC_OPT);
+        InferenceMetrics.registerMBeans();
     }
 
     public void setCuda(int deviceNum) throws OrtException {
@@ -61,16 +84,47 @@ public class SampleRAFT {
     }
 
     public void loadModel(String modelPath) throws OrtException {
+        this.modelLoaded = false;
+        InferenceMetrics.SESSION.modelUnloaded();
         if(this.session != null){
             this.session.close();
+            this.session = null;
+        }
+        if(this.flowInit != null){
+            this.flowInit.close();
+            this.flowInit = null;
         }
 
         logger.info("Loading model from {}", modelPath);
         this.session = env.createSession(modelPath, this.opts);
 
         logger.info("Inputs:");
+        List<NodeInfo> extraInputs = new ArrayList<>();
         for (NodeInfo i : session.getInputInfo().values()) {
             logger.info(i.toString());
+            if(!IMAGE1.equals(i.getName()) && !IMAGE2.equals(i.getName())){
+                extraInputs.add(i);
+            }
+        }
+
+        // an input we can't feed fails every session.run, so such model is refused at loading
+        if(extraInputs.size() > 1){
+            logger.error("Expected at most 1 flow-init input besides image1 and image2, got {} instead, " +
+                    "refusing this model", extraInputs.size());
+            this.session.close();
+            this.session = null;
+            return;
+        }
+        if(extraInputs.size() == 1){
+            NodeInfo i = extraInputs.get(0);
+            if(!isFlowInitInput(i)){
+                this.session.close();
+                this.session = null;
+                return;
+            }
+            long[] shape = ((TensorInfo) i.getInfo()).getShape();
+            this.flowInit = new FlowInitializer(this.env, i.getName(), shape, defaultTensorDimOrders, FLOW_INIT_DIVISOR);
+            logger.info("Detected flow-init input '{}', warm-start is enabled for sequence", i.getName());
         }
 
         logger.info("Outputs:");
@@ -79,17 +133,110 @@ public class SampleRAFT {
         }
 
         this.modelLoaded = true;
+        InferenceMetrics.SESSION.modelLoaded(modelPath, session.getNumInputs(), session.getNumOutputs());
+    }
+
+    /*
+     * @Description Check whether the extra input is a float flow-init tensor with 2 (or dynamic) channels, the reason
+     * is logged if not
+     * @Param
+     * @Return
+     **/
+    private static boolean isFlowInitInput(NodeInfo input) {
+        if(!(input.getInfo() instanceof TensorInfo)){
+            logger.error("Unsupported extra input '{}', expected a flow-init tensor, refusing this model", input.getName());
+            return false;
+        }
+        TensorInfo info = (TensorInfo) input.getInfo();
+        if(info.type != OnnxJavaType.FLOAT || info.getShape().length != 4){
+            logger.error("Unsupported extra input '{}' of type {} and shape {}, expected a 4-dims float flow-init " +
+                    "tensor, refusing this model", input.getName(), info.type, Arrays.toString(info.getShape()));
+            return false;
+        }
+        long channels = -1;
+        for(int d = 0; d < 3; d++){
+            if(defaultTensorDimOrders[d] == 2){
+                channels = info.getShape()[d + 1];
+            }
+        }
+        if(channels > 0 && channels != 2){
+            logger.error("Expected channel of flow-init input '{}' to be 2, got {} instead, refusing this model",
+                    input.getName(), channels);
+            return false;
+        }
+        return true;
     }
 
     public void inference(String imgPath1, String imgPath2, String savePath) throws OrtException {
+        inference(imgPath1, imgPath2, savePath, false, false);
+    }
+
+    /*
+     * @Description Predict flow for each pair of consecutive image frames in frameDir (sorted by name with numbers
+     * compared by value) and save them to saveDir. If the model has a flow-init input, forward-warped flow of previous
+     * pair is fed as initialization
+     * @Param
+     * @Return
+     **/
+    public void sequence(String frameDir, String saveDir) {
+        try{
+            // saved flow would overwrite frames of the same name and be read as frames next time
+            if(new File(frameDir).getCanonicalFile().equals(new File(saveDir).getCanonicalFile())){
+                logger.error("<path-to-save-dir> must differ from <path-to-frame-dir> '{}', skipping this operation", frameDir);
+                return;
+            }
+        }catch (IOException e){
+            logger.error("Unable to resolve path of '{}' or '{}', skipping this operation", frameDir, saveDir);
+            return;
+        }
+
+        File[] frames = new File(frameDir).listFiles(f -> f.isFile() && isImageFile(f.getName()));
+        if(frames == null || frames.length < 2){
+            logger.warn("Expected at least 2 image frames in '{}', skipping this operation", frameDir);
+            return;
+        }
+        Arrays.sort(frames, (f1, f2) -> compareNaturally(f1.getName(), f2.getName()));
+
+        boolean warmStart = false;
+        for(int i = 0; i + 1 < frames.length; i++){
+            String name = frames[i].getName();
+            int dot = name.lastIndexOf('.');
+            String savePath = new File(saveDir, (dot > 0 ? name.substring(0, dot) : name) + "." + PNG).getPath();
+            // warped flow is only prepared when there is a next pair to consume it
+            boolean warmNext = i + 2 < frames.length;
+            // a failed pair breaks the sequence, so the next pair starts cold
+            try{
+                warmStart = inference(frames[i].getPath(), frames[i + 1].getPath(), savePath, warmStart, warmNext);
+            }catch (OrtException e){
+                logger.error("Failed to predict flow of '{}' and '{}': {}", frames[i].getName(),
+                        frames[i + 1].getName(), e.getMessage());
+                warmStart = false;
+            }
+        }
+    }
+
+    private boolean inference(String imgPath1, String imgPath2, String savePath, boolean warmStart, boolean warmNext)
+            throws OrtException {
+        // every return and exception of runInference is counted, so failed count covers all failure paths
+        boolean success = false;
+        try{
+            success = runInference(imgPath1, imgPath2, savePath, warmStart, warmNext);
+            return success;
+        }finally{
+            InferenceMetrics.SESSION.inferenceDone(success);
+        }
+    }
+
+    private boolean runInference(String imgPath1, String imgPath2, String savePath, boolean warmStart, boolean warmNext)
+            throws OrtException {
         if(!this.modelLoaded){
             logger.warn("Try to do inference before loading model, skipping this operation");
-            return;
+            return false;
         }
 
         if(!savePath.endsWith(PNG)){
             logger.warn("As flow will be saved in kitti-format, only '.png' is supported. Skip this operation.");
-            return;
+            return false;
         }
 
         // create parent directory of save-path in advance
@@ -105,46 +252,104 @@ public class SampleRAFT {
             }else{
                 logger.error("Unable to create parent directory of save-path: {}, skipping this operation", file.getAbsolutePath());
                 stack.clear();
-                return;
+                return false;
             }
         }
 
-        Mat mat1 = imread(imgPath1, IMREAD_UNCHANGED);
-        Mat mat2 = imread(imgPath2, IMREAD_UNCHANGED);
+        Mat mat1 = null;
+        Mat mat2 = null;
+        OnnxTensor tensor1 = null;
+        OnnxTensor tensor2 = null;
+        OnnxTensor output = null;
+        Mat matRet = null;
+        // release native resources even when session.run or tensor creation throws
+        try{
+            long start = InferenceMetrics.start();
+            mat1 = imread(imgPath1, IMREAD_UNCHANGED);
+            mat2 = imread(imgPath2, IMREAD_UNCHANGED);
+            InferenceMetrics.DECODE.stop(start);
 
-        if(mat1.height() != mat2.height() || mat1.width() != mat2.width() || mat1.channels() != mat2.channels()){
-            logger.error("Conflicting input image shape of {} and {}", mat1.size(), mat2.size());
-            mat1.release();
-            mat2.release();
-            return;
-        }
+            if(mat1.empty() || mat2.empty()){
+                logger.error("Unable to decode '{}' or '{}' as image, skipping this operation", imgPath1, imgPath2);
+                return false;
+            }
 
-        OnnxTensor tensor1 = createTensorFromImageMat(this.env, mat1, defaultTensorDimOrders);
-        OnnxTensor tensor2 = createTensorFromImageMat(this.env, mat2, defaultTensorDimOrders);
-        Map<String, OnnxTensor> inputs = Map.of("image1", tensor1, "image2", tensor2);
+            if(mat1.height() != mat2.height() || mat1.width() != mat2.width() || mat1.channels() != mat2.channels()){
+                logger.error("Conflicting input image shape of {} and {}", mat1.size(), mat2.size());
+                return false;
+            }
 
-        Result result = session.run(inputs);
-        OnnxTensor output = (OnnxTensor) result.get(0);
+            start = InferenceMetrics.start();
+            tensor1 = createTensorFromImageMat(this.env, mat1, defaultTensorDimOrders);
+            tensor2 = createTensorFromImageMat(this.env, mat2, defaultTensorDimOrders);
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put(IMAGE1, tensor1);
+            inputs.put(IMAGE2, tensor2);
+            if(this.flowInit != null){
+                // flow-init tensor wraps a direct buffer, which is zeroed for a cold start or holds the warped flow
+                OnnxTensor flowInitTensor = this.flowInit.getTensor(mat1.height(), mat1.width());
+                if(!warmStart){
+                    this.flowInit.reset();
+                }
+                inputs.put(this.flowInit.getName(), flowInitTensor);
+            }
+            InferenceMetrics.TENSOR.stop(start);
 
-        Mat matRet = flowTensorToKittiMat(output, defaultTensorDimOrders);
-        if(imwrite(savePath, matRet)){
-            logger.info("Save kitti-format flow-prediction to: {}", savePath);
-        }else{
-            logger.warn("Failed to save kitti-format flow-prediction to: {}. Check whether the extension " +
-                    "of save-path is right.", savePath);
-        }
+            start = InferenceMetrics.start();
+            Result result = session.run(inputs);
+            output = (OnnxTensor) result.get(0);
+            InferenceMetrics.RUN.stop(start);
+            // result.close(); // doing this will close the VM
 
-        matRet.release();
-        output.close();
-        // result.close(); // doing this will close the VM
+            start = InferenceMetrics.start();
+            // getFloatBuffer() copies output to heap, so it's read once and shared by kitti conversion and warping
+            long[] outputShape = output.getInfo().getShape();
+            FloatBuffer outputBuffer = output.getFloatBuffer();
+            matRet = flowBufferToKittiMat(outputBuffer, outputShape, defaultTensorDimOrders);
+            InferenceMetrics.KITTI.stop(start);
 
-        mat1.release();
-        mat2.release();
-        tensor1.close();
-        tensor2.close();
+            start = InferenceMetrics.start();
+            boolean saved = imwrite(savePath, matRet);
+            InferenceMetrics.WRITE.stop(start);
+            if(saved){
+                logger.info("Save kitti-format flow-prediction to: {}", savePath);
+            }else{
+                logger.warn("Failed to save kitti-format flow-prediction to: {}. Check whether the extension " +
+                        "of save-path is right.", savePath);
+            }
+
+            if(this.flowInit != null && warmNext && saved){
+                start = InferenceMetrics.start();
+                this.flowInit.update(outputBuffer, outputShape);
+                InferenceMetrics.WARP.stop(start);
+            }
+            return saved;
+        }finally{
+            if(matRet != null){
+                matRet.release();
+            }
+            if(output != null){
+                output.close();
+            }
+            if(mat1 != null){
+                mat1.release();
+            }
+            if(mat2 != null){
+                mat2.release();
+            }
+            if(tensor1 != null){
+                tensor1.close();
+            }
+            if(tensor2 != null){
+                tensor2.close();
+            }
+        }
     }
 
     public void close() throws OrtException {
+        if(this.flowInit != null){
+            this.flowInit.close();
+        }
         if(this.session != null){
             this.session.close();
         }
@@ -198,6 +403,20 @@ public class SampleRAFT {
                         logger.error("Given model path '{}' not exists, skipping this operation.", modelPath);
                     }
                     raft.loadModel(operation[1]);
+                }else if(SEQUENCE.equals(opCode)){
+                    if(operation.length < 3){
+                        logger.warn("Expected 3 argument for sequence operation, got {} instead.", operation.length);
+                    }else if(!exists(operation[1])){
+                        logger.error("Given <path-to-frame-dir> '{}' does not exists, skipping this operation", operation[1]);
+                    }else{
+                        raft.sequence(operation[1], operation[2]);
+                    }
+                }else if(STATS.equals(opCode)){
+                    System.out.print(InferenceMetrics.report());
+                    if(operation.length > 1 && RESET.equals(operation[1])){
+                        InferenceMetrics.reset();
+                        logger.info("Reset per-stage metrics and session counters");
+                    }
                 }else if(QUIT.equals(opCode)){
                     raft.close();
                     break;
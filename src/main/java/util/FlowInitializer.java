@@ -0,0 +1,234 @@
+package util;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/*
+ * Description Hold the flow-init input of a warm-start model. The tensor is backed by a native-order direct buffer,
+ * so onnxruntime reads it in place and the buffer is refilled with forward-warped flow of previous frame in sequence
+ **/
+public class FlowInitializer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FlowInitializer.class);
+    private final OrtEnvironment env;
+    private final String name;
+    // shape declared by the model, non-positive (dynamic) dims are resolved as ceil(image size / divisor)
+    private final long[] declaredShape;
+    private final int[] dimOrders;
+    private final int divisor;
+    private long[] shape;
+    private FloatBuffer buffer;
+    private float[] weights;
+    private boolean[] rowFilled;
+    private OnnxTensor tensor;
+
+    public FlowInitializer(OrtEnvironment env, String name, long[] declaredShape, int[] dimOrders, int divisor) {
+        this.env = env;
+        this.name = name;
+        this.declaredShape = declaredShape;
+        this.dimOrders = dimOrders;
+        this.divisor = divisor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*
+     * @Description Return flow-init tensor for images of given size, buffer and tensor are only re-created (zeroed)
+     * when the resolved shape changes
+     * @Param
+     * @Return
+     **/
+    public OnnxTensor getTensor(int height, int width) throws OrtException {
+        long[] curShape = new long[4];
+        // RAFT pads images to be divisible by divisor, so flow-init has ceil(size / divisor) cells
+        int[] dims = new int[]{(height + divisor - 1) / divisor, (width + divisor - 1) / divisor, 2};
+        curShape[0] = 1;
+        for(int i = 0; i < 3; i++){
+            // i-th tensor dim (after batch) holds the dimOrders[i]-th dim of (H, W, C)
+            curShape[i + 1] = declaredShape[i + 1] > 0 ? declaredShape[i + 1] : dims[dimOrders[i]];
+        }
+        if(tensor == null || !Arrays.equals(shape, curShape)){
+            close();
+            shape = curShape;
+            int cap = (int) (shape[1] * shape[2] * shape[3]);
+            buffer = ByteBuffer.allocateDirect(cap * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            weights = new float[getDim(shape, 0) * getDim(shape, 1)];
+            rowFilled = new boolean[getDim(shape, 0)];
+            tensor = OnnxTensor.createTensor(env, buffer, shape);
+            logger.info("Allocate flow-init input '{}' with shape {}", name, Arrays.toString(shape));
+        }
+        return tensor;
+    }
+
+    /*
+     * @Description Zero the flow-init buffer, which is the cold start of RAFT
+     * @Param
+     * @Return
+     **/
+    public void reset() {
+        if(buffer == null){
+            return;
+        }
+        for(int i = 0; i < buffer.capacity(); i++){
+            buffer.put(i, 0f);
+        }
+    }
+
+    /*
+     * @Description Forward-warp the flow prediction (1 * H * W * 2, arranged by dimOrders) into the flow-init buffer.
+     * Like RAFT, flow-init is on the 1 / divisor grid of the image padded in sintel fashion, so pixel x lands in cell
+     * round((x + u + padLeft) / divisor) with flow u / divisor. Holes take the nearer valid cell in their row, and
+     * rows without any valid cell then take the nearer filled row, which approximates 2-D nearest fill
+     * @Param [flow, flowShape] flow is read with absolute index, so it can be shared with other consumers
+     * @Return
+     **/
+    public void update(FloatBuffer flow, long[] flowShape) {
+        if(buffer == null){
+            return;
+        }
+        int srcHeight = getDim(flowShape, 0);
+        int srcWidth = getDim(flowShape, 1);
+        int dstHeight = getDim(shape, 0);
+        int dstWidth = getDim(shape, 1);
+        if(dstHeight != (srcHeight + divisor - 1) / divisor || dstWidth != (srcWidth + divisor - 1) / divisor){
+            logger.warn("Flow shape {} doesn't match flow-init shape {} with divisor {}, fall back to cold start",
+                    Arrays.toString(flowShape), Arrays.toString(shape), divisor);
+            reset();
+            return;
+        }
+        // sintel padding puts half of the padding before the image
+        float padTop = (dstHeight * divisor - srcHeight) / 2;
+        float padLeft = (dstWidth * divisor - srcWidth) / 2;
+        float scale = 1f / divisor;
+
+        int[] srcFactors = getFactors(flowShape);
+        int[] dstFactors = getFactors(shape);
+        reset();
+        Arrays.fill(weights, 0f);
+
+        // splat every source pixel to its displaced position in flow-init grid
+        for(int h = 0; h < srcHeight; h++){
+            for(int w = 0; w < srcWidth; w++){
+                float u = flow.get(index(srcFactors, h, w, 0));
+                float v = flow.get(index(srcFactors, h, w, 1));
+                int x = Math.round((w + u + padLeft) * scale);
+                int y = Math.round((h + v + padTop) * scale);
+                if(x < 0 || x >= dstWidth || y < 0 || y >= dstHeight){
+                    continue;
+                }
+                int uIdx = index(dstFactors, y, x, 0);
+                int vIdx = index(dstFactors, y, x, 1);
+                buffer.put(uIdx, buffer.get(uIdx) + u * scale);
+                buffer.put(vIdx, buffer.get(vIdx) + v * scale);
+                weights[y * dstWidth + x] += 1;
+            }
+        }
+
+        // normalize splatted flow and fill holes with the nearer valid cell in the same row
+        for(int y = 0; y < dstHeight; y++){
+            int lastValid = -1;
+            for(int x = 0; x < dstWidth; x++){
+                float weight = weights[y * dstWidth + x];
+                if(weight <= 0){
+                    continue;
+                }
+                for(int ch = 0; ch < 2; ch++){
+                    int idx = index(dstFactors, y, x, ch);
+                    buffer.put(idx, buffer.get(idx) / weight);
+                }
+                // holes between lastValid and x, leading holes only have x on their right
+                for(int hole = lastValid + 1; hole < x; hole++){
+                    boolean fromRight = lastValid < 0 || x - hole <= hole - lastValid;
+                    copyFlow(dstFactors, y, fromRight ? x : lastValid, y, hole);
+                }
+                lastValid = x;
+            }
+            // trailing holes only have lastValid on their left
+            for(int hole = lastValid + 1; lastValid >= 0 && hole < dstWidth; hole++){
+                copyFlow(dstFactors, y, lastValid, y, hole);
+            }
+            rowFilled[y] = lastValid >= 0;
+        }
+
+        // rows without any valid cell (e.g. border rows under vertical motion) take the nearer filled row
+        int lastFilled = -1;
+        for(int y = 0; y < dstHeight; y++){
+            if(!rowFilled[y]){
+                continue;
+            }
+            for(int hole = lastFilled + 1; hole < y; hole++){
+                boolean fromBelow = lastFilled < 0 || y - hole <= hole - lastFilled;
+                copyRow(dstFactors, fromBelow ? y : lastFilled, hole, dstWidth);
+            }
+            lastFilled = y;
+        }
+        for(int hole = lastFilled + 1; lastFilled >= 0 && hole < dstHeight; hole++){
+            copyRow(dstFactors, lastFilled, hole, dstWidth);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(tensor != null){
+            tensor.close();
+            tensor = null;
+        }
+        buffer = null;
+        weights = null;
+        rowFilled = null;
+        shape = null;
+    }
+
+    /*
+     * @Description Get size of the dim-th dim of (H, W, C) from a tensor shape arranged by dimOrders
+     * @Param
+     * @Return
+     **/
+    private int getDim(long[] tensorShape, int dim) {
+        for(int i = 0; i < 3; i++){
+            if(dimOrders[i] == dim){
+                return (int) tensorShape[i + 1];
+            }
+        }
+        throw new RuntimeException(String.format("Invalid dimOrders %s", Arrays.toString(dimOrders)));
+    }
+
+    private void copyFlow(int[] factors, int fromY, int fromX, int toY, int toX) {
+        for(int ch = 0; ch < 2; ch++){
+            buffer.put(index(factors, toY, toX, ch), buffer.get(index(factors, fromY, fromX, ch)));
+        }
+    }
+
+    private void copyRow(int[] factors, int fromY, int toY, int width) {
+        for(int x = 0; x < width; x++){
+            copyFlow(factors, fromY, x, toY, x);
+        }
+    }
+
+    /*
+     * @Description Calculate index in row-major manner, the dim values are determined by indexing with dimOrders
+     * @Param
+     * @Return
+     **/
+    private int index(int[] factors, int h, int w, int ch) {
+        return pick(dimOrders[0], h, w, ch) * factors[0] + pick(dimOrders[1], h, w, ch) * factors[1]
+                + pick(dimOrders[2], h, w, ch);
+    }
+
+    private static int pick(int dim, int h, int w, int ch) {
+        return dim == 0 ? h : (dim == 1 ? w : ch);
+    }
+
+    private static int[] getFactors(long[] shape) {
+        return new int[]{(int) (shape[2] * shape[3]), (int) shape[3]};
+    }
+}
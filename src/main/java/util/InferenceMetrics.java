@@ -0,0 +1,75 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+public class InferenceMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(InferenceMetrics.class);
+    private static final String DOMAIN = "org.wyxgoishin.raft";
+    // Metrics can be turned off with -Draft.metrics=false, timers then skip System.nanoTime() entirely
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("raft.metrics"));
+    public static final StageTimer DECODE = new StageTimer("decode");
+    public static final StageTimer TENSOR = new StageTimer("tensor");
+    public static final StageTimer RUN = new StageTimer("run");
+    public static final StageTimer KITTI = new StageTimer("kitti");
+    public static final StageTimer WRITE = new StageTimer("write");
+    public static final StageTimer WARP = new StageTimer("warp");
+    public static final List<StageTimer> STAGES = List.of(DECODE, TENSOR, RUN, KITTI, WRITE, WARP);
+    public static final SessionStats SESSION = new SessionStats();
+    private static boolean isRegistered = false;
+
+    /*
+     * @Description Return the start timestamp of a stage, 0 is returned when metrics is disabled
+     * @Param
+     * @Return
+     **/
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /*
+     * @Description Register stage timers and session stats to platform MBeanServer, do nothing when metrics is disabled
+     * @Param
+     * @Return
+     **/
+    public static synchronized void registerMBeans() {
+        if(!ENABLED || isRegistered){
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try{
+            for(StageTimer stage : STAGES){
+                server.registerMBean(stage, new ObjectName(DOMAIN + ":type=Stage,name=" + stage.getName()));
+            }
+            server.registerMBean(SESSION, new ObjectName(DOMAIN + ":type=Session"));
+            isRegistered = true;
+        }catch (JMException e){
+            logger.warn("Unable to register inference metrics MBeans: {}", e.getMessage());
+        }
+    }
+
+    public static void reset() {
+        for(StageTimer stage : STAGES){
+            stage.reset();
+        }
+        SESSION.reset();
+    }
+
+    public static String report() {
+        if(!ENABLED){
+            return "Metrics are disabled, restart with -Draft.metrics=true to enable them\n";
+        }
+        StringBuilder sb = new StringBuilder();
+        for(StageTimer stage : STAGES){
+            sb.append(stage).append('\n');
+        }
+        sb.append(SESSION).append('\n');
+        return sb.toString();
+    }
+}
@@ -5,13 +5,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 public class MiscUtil {
     private static boolean isOpencvInited = false;
     private static final String opencvDllName = "opencv_java455.dll";
     private static final String Jar = "jar";
     private static final String FILE = "file";
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("bmp", "jpeg", "jpg", "pgm", "png", "ppm", "tif", "tiff", "webp");
     private static File fileChecker = null;
 
     public static void initOpenCV(){
@@ -51,4 +54,54 @@ public class MiscUtil {
         fileChecker = new File(filepath);
         return fileChecker.exists();
     }
+
+    public static boolean isImageFile(String filename){
+        int dot = filename.lastIndexOf('.');
+        return dot > 0 && IMAGE_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /*
+     * @Description Compare two names with digit runs compared by numeric value, so 'frame2' is before 'frame10'
+     * @Param
+     * @Return
+     **/
+    public static int compareNaturally(String s1, String s2){
+        int i = 0, j = 0;
+        while(i < s1.length() && j < s2.length()){
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(j);
+            if(Character.isDigit(c1) && Character.isDigit(c2)){
+                int end1 = i, end2 = j;
+                while(end1 < s1.length() && Character.isDigit(s1.charAt(end1))){
+                    end1++;
+                }
+                while(end2 < s2.length() && Character.isDigit(s2.charAt(end2))){
+                    end2++;
+                }
+                // skip leading zeros, then the longer digit run is the larger number
+                while(i < end1 - 1 && s1.charAt(i) == '0'){
+                    i++;
+                }
+                while(j < end2 - 1 && s2.charAt(j) == '0'){
+                    j++;
+                }
+                if(end1 - i != end2 - j){
+                    return (end1 - i) - (end2 - j);
+                }
+                int cmp = s1.substring(i, end1).compareTo(s2.substring(j, end2));
+                if(cmp != 0){
+                    return cmp;
+                }
+                i = end1;
+                j = end2;
+            }else{
+                if(c1 != c2){
+                    return c1 - c2;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (s1.length() - i) - (s2.length() - j);
+    }
 }
@@ -3,6 +3,7 @@ package util;
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import java.util.Arrays;
@@ -154,7 +155,7 @@ public class OnnxTensorUtil {
 
     /*
      * @Author wyxgoishin
-     * @Description Transform a Pytorch style tensor (1 * C * H * W) to a 3-channel Mat, ensure C <= 3
+     * @Description Transform a Pytorch style tensor (1 * C * H * W) to a C-channel Mat of CV_32F depth
      * @Date 2022/6/13 14:02
      * @Param
      * @Return
@@ -165,7 +166,8 @@ public class OnnxTensorUtil {
 
     /*
      * @Author wyxgoishin
-     * @Description Transform a Pytorch style  tensor (B * C * H * W) to list of 3-channel Mats, ensure C <= 3
+     * @Description Transform a Pytorch style tensor (B * C * H * W) to list of C-channel Mats of CV_32F depth. Each
+     * channel plane is copied into a single-channel Mat with one put and planes are interleaved by Core.merge
      * @Date 2022/6/13 13:44
      * @Param
      * @Return
@@ -173,17 +175,23 @@ public class OnnxTensorUtil {
     public static List<Mat> createImageMatsFromTensor(OnnxTensor tensor){
         long[] shape = tensor.getInfo().getShape();
         int channels = (int) shape[1];
-        if(channels > 3){
-            logger.error("Expected channel of given Tensor to be less than 3, got {} instead", channels);
+        if(channels < 1 || channels > CvType.CV_CN_MAX){
+            logger.error("Expected channel of given Tensor to be in [1, {}], got {} instead", CvType.CV_CN_MAX, channels);
             throw new RuntimeException();
         }
 
         int batch = (int) shape[0];
         int height = (int) shape[2];
         int width = (int) shape[3];
-        int type = CvType.CV_32FC3;
+        int type = CvType.CV_32FC(channels);
 
         List<Mat> mats = new ArrayList<>(batch);
+        // Single-channel planes are reused among batch as Core.merge copies them into a new Mat
+        List<Mat> planes = new ArrayList<>(channels);
+        for(int ch = 0; ch < channels && channels > 1; ch++){
+            planes.add(new Mat(height, width, CvType.CV_32FC1));
+        }
+
         long cap = (long) batch * channels * height * width;
         // MaxSize of java.nio.Buffer is Integer.MAX_VALUE
         if(cap > Integer.MAX_VALUE){
@@ -197,44 +205,48 @@ public class OnnxTensorUtil {
                 throw new RuntimeException(e);
             }
 
-            float[] buf = new float[3];
             for(int b = 0; b < batch; b++){
-                Mat mat = Mat.zeros(height, width, type);
-                for(int h = 0; h < height; h++){
-                    for(int w = 0; w < width; w++){
-                        for(int ch = 0; ch < channels; ch++){
-                            buf[ch] = bufArr[b][ch][h][w];
-                        }
-                        mat.put(h, w, buf);
+                for(int ch = 0; ch < channels; ch++){
+                    Mat plane = channels > 1 ? planes.get(ch) : new Mat(height, width, type);
+                    // Rows of a plane are separate arrays, so put them row by row
+                    for(int h = 0; h < height; h++){
+                        plane.put(h, 0, bufArr[b][ch][h]);
+                    }
+                    if(channels == 1){
+                        mats.add(plane);
                     }
                 }
-                mats.add(mat);
+                if(channels > 1){
+                    Mat mat = new Mat();
+                    Core.merge(planes, mat);
+                    mats.add(mat);
+                }
             }
         }else{
             // Construct Mats from Buffer, default
-            /* calculate the factors for indexing buffer in row-major manner and the dim values are determined
-             * by indexing from shape with given dimOrders
-             **/
-            int[] factors = getFactors(channels, height, width);
-
+            // Tensor is stored as B * C * H * W in row-major manner, so planes can be read sequentially
             FloatBuffer floatBuffer = tensor.getFloatBuffer();
-            float[] buf = new float[3];
+            float[] buf = new float[height * width];
             for(int b = 0; b < batch; b++){
-                Mat mat = Mat.zeros(height, width, type);
-                for(int h = 0; h < height; h++){
-                    for(int w = 0; w < width; w++){
-                        for(int ch = 0; ch < channels; ch++){
-                            // Calculate index in row-major manner
-                            int index = b * factors[0] + ch * factors[1] + h * factors[2] + w;
-                            buf[ch] = floatBuffer.get(index);
-                        }
-                        mat.put(h, w, buf);
+                for(int ch = 0; ch < channels; ch++){
+                    Mat plane = channels > 1 ? planes.get(ch) : new Mat(height, width, type);
+                    floatBuffer.get(buf);
+                    plane.put(0, 0, buf);
+                    if(channels == 1){
+                        mats.add(plane);
                     }
                 }
-                mats.add(mat);
+                if(channels > 1){
+                    Mat mat = new Mat();
+                    Core.merge(planes, mat);
+                    mats.add(mat);
+                }
             }
         }
 
+        for(Mat plane : planes){
+            plane.release();
+        }
         return mats;
     }
 
@@ -311,39 +323,72 @@ public class OnnxTensorUtil {
             }
         }else{
             // Construct Mats from Buffer, default
-            /* calculate the factors for indexing buffer in row-major manner and the dim values are determined
-             * by indexing from shape with given dimOrders
-             **/
-            int[] factors = getFactors((int) shape[1], (int) shape[2], (int) shape[3]);
+            mats = flowBufferToKittiMats(tensor.getFloatBuffer(), shape, dimOrders);
+        }
 
-            FloatBuffer floatBuffer = tensor.getFloatBuffer();
-            float[] floatBuf = new float[3];
-            // kitti-format image is stored in uint16
-            short[] shortBuf = new short[3];
-            for(int b = 0; b < batch; b++){
-                Mat mat = Mat.zeros(height, width, type);
-                for(int h = 0; h < height; h++){
-                    indexes[0] = h;
-                    for(int w = 0; w < width; w++){
-                        indexes[1] = w;
-                        for(int ch = 0; ch < channels; ch++){
-                            indexes[2] = ch;
-                            int index = b * factors[0] + indexes[dimOrders[0]] * factors[1] + indexes[dimOrders[1]] * factors[2] + indexes[dimOrders[2]];
-                            // kitti-flow : f(x) = x * 64 + 2 ** 15, in uint16 format
-                            floatBuf[ch] = (float) Math.min(floatBuffer.get(index) * 64.0 + 32768.0, 65535.0);
-                            floatBuf[ch] = Math.max(-65535, floatBuf[ch]);
-                            // change signed value to unsigned one
-                            floatBuf[ch] = floatBuf[ch] > 32767 ? floatBuf[ch] - 65536: floatBuf[ch];
-                            shortBuf[ch] = (short) Math.round(floatBuf[ch]);
-                        }
-                        // three channel value for kitti-flow : 1, v, u
-                        shortBuf[2] = shortBuf[0];
-                        shortBuf[0] = 1;
-                        mat.put(h, w, shortBuf);
+        return mats;
+    }
+
+    /*
+     * @Description Transform a Pytorch style optical flow buffer (1 * 2 * H * W, arranged by dimOrders) to a KITTI
+     * format Mat
+     * @Param
+     * @Return
+     **/
+    public static Mat flowBufferToKittiMat(FloatBuffer floatBuffer, long[] shape, int[] dimOrders){
+        return flowBufferToKittiMats(floatBuffer, shape, dimOrders).get(0);
+    }
+
+    /*
+     * @Description Transform a Pytorch style optical flow buffer (B * 2 * H * W, arranged by dimOrders) to list of
+     * KITTI format Mats, which lets caller share one FloatBuffer read from the output tensor
+     * @Param
+     * @Return
+     **/
+    public static List<Mat> flowBufferToKittiMats(FloatBuffer floatBuffer, long[] shape, int[] dimOrders){
+        int channels = (int) shape[dimOrders[2] + 1];
+        if(channels != 2){
+            logger.error("Expected channel of Flow Tensor to be 2, got {} instead", channels);
+            throw new RuntimeException();
+        }
+        int batch = (int) shape[0];
+        int height = (int) shape[dimOrders[0] + 1];
+        int width = (int) shape[dimOrders[1] + 1];
+        int type = CvType.CV_16UC3;
+        int[] indexes = new int[3];
+
+        List<Mat> mats = new ArrayList<>(batch);
+        /* calculate the factors for indexing buffer in row-major manner and the dim values are determined
+         * by indexing from shape with given dimOrders
+         **/
+        int[] factors = getFactors((int) shape[1], (int) shape[2], (int) shape[3]);
+
+        float[] floatBuf = new float[3];
+        // kitti-format image is stored in uint16
+        short[] shortBuf = new short[3];
+        for(int b = 0; b < batch; b++){
+            Mat mat = Mat.zeros(height, width, type);
+            for(int h = 0; h < height; h++){
+                indexes[0] = h;
+                for(int w = 0; w < width; w++){
+                    indexes[1] = w;
+                    for(int ch = 0; ch < channels; ch++){
+                        indexes[2] = ch;
+                        int index = b * factors[0] + indexes[dimOrders[0]] * factors[1] + indexes[dimOrders[1]] * factors[2] + indexes[dimOrders[2]];
+                        // kitti-flow : f(x) = x * 64 + 2 ** 15, in uint16 format
+                        floatBuf[ch] = (float) Math.min(floatBuffer.get(index) * 64.0 + 32768.0, 65535.0);
+                        floatBuf[ch] = Math.max(-65535, floatBuf[ch]);
+                        // change signed value to unsigned one
+                        floatBuf[ch] = floatBuf[ch] > 32767 ? floatBuf[ch] - 65536: floatBuf[ch];
+                        shortBuf[ch] = (short) Math.round(floatBuf[ch]);
                     }
+                    // three channel value for kitti-flow : 1, v, u
+                    shortBuf[2] = shortBuf[0];
+                    shortBuf[0] = 1;
+                    mat.put(h, w, shortBuf);
                 }
-                mats.add(mat);
             }
+            mats.add(mat);
         }
 
         return mats;
@@ -0,0 +1,131 @@
+package util;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SessionStats implements SessionStatsMBean {
+    private static final String DIRECT = "direct";
+    private static final String MAPPED = "mapped";
+    private final LongAdder inferenceCount = new LongAdder();
+    private final LongAdder failedInferenceCount = new LongAdder();
+    private volatile boolean modelLoaded;
+    private volatile String modelPath = "";
+    private volatile long inputCount;
+    private volatile long outputCount;
+
+    public void modelLoaded(String modelPath, long inputCount, long outputCount) {
+        this.modelPath = modelPath;
+        this.inputCount = inputCount;
+        this.outputCount = outputCount;
+        this.modelLoaded = true;
+    }
+
+    public void modelUnloaded() {
+        this.modelLoaded = false;
+    }
+
+    public void inferenceDone(boolean success) {
+        if(!InferenceMetrics.ENABLED){
+            return;
+        }
+        inferenceCount.increment();
+        if(!success){
+            failedInferenceCount.increment();
+        }
+    }
+
+    /*
+     * @Description Clear inference counters, model info and buffer-pool gauges are kept as they are not windowed
+     * @Param
+     * @Return
+     **/
+    @Override
+    public void reset() {
+        inferenceCount.reset();
+        failedInferenceCount.reset();
+    }
+
+    @Override
+    public boolean isModelLoaded() {
+        return modelLoaded;
+    }
+
+    @Override
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    @Override
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public long getOutputCount() {
+        return outputCount;
+    }
+
+    @Override
+    public long getInferenceCount() {
+        return inferenceCount.sum();
+    }
+
+    @Override
+    public long getFailedInferenceCount() {
+        return failedInferenceCount.sum();
+    }
+
+    @Override
+    public long getDirectBufferCount() {
+        BufferPoolMXBean pool = bufferPool(DIRECT);
+        return pool == null ? -1 : pool.getCount();
+    }
+
+    @Override
+    public long getDirectBufferMemoryUsed() {
+        BufferPoolMXBean pool = bufferPool(DIRECT);
+        return pool == null ? -1 : pool.getMemoryUsed();
+    }
+
+    @Override
+    public long getDirectBufferTotalCapacity() {
+        BufferPoolMXBean pool = bufferPool(DIRECT);
+        return pool == null ? -1 : pool.getTotalCapacity();
+    }
+
+    @Override
+    public long getMappedBufferCount() {
+        BufferPoolMXBean pool = bufferPool(MAPPED);
+        return pool == null ? -1 : pool.getCount();
+    }
+
+    @Override
+    public long getMappedBufferMemoryUsed() {
+        BufferPoolMXBean pool = bufferPool(MAPPED);
+        return pool == null ? -1 : pool.getMemoryUsed();
+    }
+
+    /*
+     * @Description Look up platform buffer pool by name, null is returned if the jvm doesn't expose it
+     * @Param
+     * @Return
+     **/
+    private static BufferPoolMXBean bufferPool(String name) {
+        for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)){
+            if(name.equals(pool.getName())){
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("session  loaded=%b model='%s' inputs=%d outputs=%d inferences=%d failed=%d\n" +
+                        "buffers  direct count=%d used=%dB capacity=%dB, mapped count=%d used=%dB",
+                isModelLoaded(), getModelPath(), getInputCount(), getOutputCount(), getInferenceCount(),
+                getFailedInferenceCount(), getDirectBufferCount(), getDirectBufferMemoryUsed(),
+                getDirectBufferTotalCapacity(), getMappedBufferCount(), getMappedBufferMemoryUsed());
+    }
+}
@@ -0,0 +1,30 @@
+package util;
+
+/*
+ * Description JMX view of session-level and buffer-pool gauges
+ **/
+public interface SessionStatsMBean {
+    boolean isModelLoaded();
+
+    String getModelPath();
+
+    long getInputCount();
+
+    long getOutputCount();
+
+    long getInferenceCount();
+
+    long getFailedInferenceCount();
+
+    long getDirectBufferCount();
+
+    long getDirectBufferMemoryUsed();
+
+    long getDirectBufferTotalCapacity();
+
+    long getMappedBufferCount();
+
+    long getMappedBufferMemoryUsed();
+
+    void reset();
+}
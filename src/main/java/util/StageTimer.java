@@ -0,0 +1,177 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StageTimer implements StageTimerMBean {
+    /* durations below SUB_BUCKETS nanos have their own bucket, larger ones are put into one of SUB_BUCKETS linear
+     * sub-buckets of their power of two, so a bucket is at most 1 / SUB_BUCKETS (12.5%) wide relative to its value
+     **/
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    // start of the first and end of the last recorded call since reset, for the rate of throughput
+    private final AtomicLong firstStartNanos = new AtomicLong(UNSET);
+    private final AtomicLong lastEndNanos = new AtomicLong(UNSET);
+
+    public StageTimer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*
+     * @Description Record the time elapsed since startNanos, which should come from InferenceMetrics.start()
+     * @Param
+     * @Return
+     **/
+    public void stop(long startNanos) {
+        if(!InferenceMetrics.ENABLED){
+            return;
+        }
+        long endNanos = System.nanoTime();
+        record(endNanos - startNanos, endNanos);
+    }
+
+    public void record(long nanos) {
+        record(nanos, System.nanoTime());
+    }
+
+    private void record(long nanos, long endNanos) {
+        if(nanos < 0){
+            nanos = 0;
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        histogram.incrementAndGet(bucketIndex(nanos));
+        if(firstStartNanos.get() == UNSET){
+            firstStartNanos.compareAndSet(UNSET, endNanos - nanos);
+        }
+        lastEndNanos.accumulateAndGet(endNanos, Math::max);
+        long max = maxNanos.get();
+        while(nanos > max && !maxNanos.compareAndSet(max, nanos)){
+            max = maxNanos.get();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentile(0.99);
+    }
+
+    /*
+     * @Description Calls per second over the wall-clock span from the start of the first call to the end of the last
+     * call since reset
+     * @Param
+     * @Return
+     **/
+    @Override
+    public double getThroughputPerSecond() {
+        long first = firstStartNanos.get();
+        long span = lastEndNanos.get() - first;
+        return first == UNSET || span <= 0 ? 0 : count.sum() * 1_000_000_000.0 / span;
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+        for(int i = 0; i < BUCKETS; i++){
+            histogram.set(i, 0);
+        }
+        firstStartNanos.set(UNSET);
+        lastEndNanos.set(UNSET);
+    }
+
+    /*
+     * @Description Estimate the percentile from histogram, the upper bound of the matched bucket (capped by max) is returned,
+     * which overestimates by at most 12.5%
+     * @Param
+     * @Return
+     **/
+    private double percentile(double p) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            total += histogram.get(i);
+        }
+        if(total == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += histogram.get(i);
+            if(seen >= rank){
+                return Math.min(bucketUpperBound(i), maxNanos.get()) / NANOS_PER_MILLI;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    private static int bucketIndex(long nanos) {
+        if(nanos < SUB_BUCKETS){
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        // nanos >>> shift is in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /*
+     * @Description Largest duration (in nanos) that falls into the index-th bucket
+     * @Param
+     * @Return
+     **/
+    private static long bucketUpperBound(int index) {
+        if(index < SUB_BUCKETS){
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        // overflows to Long.MIN_VALUE for the last bucket, so minus 1 gives Long.MAX_VALUE
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s count=%d mean=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms throughput=%.2f/s",
+                name, getCount(), getMeanMillis(), getP50Millis(), getP99Millis(), getMaxMillis(), getThroughputPerSecond());
+    }
+}
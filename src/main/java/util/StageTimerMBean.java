@@ -0,0 +1,22 @@
+package util;
+
+/*
+ * Description JMX view of a single inference stage, all durations are reported in milliseconds
+ **/
+public interface StageTimerMBean {
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getThroughputPerSecond();
+
+    void reset();
+}